@@ -0,0 +1,519 @@
+package org.FrostyFlippper;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregates time spent per day, project, language and entity from the heartbeat stream using Wakatime's timeout rule,
+ * so that activity can be queried locally without going through the Wakatime CLI.
+ */
+public class ActivityAggregator {
+    public static final long DEFAULT_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    public static final long REORDER_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(2);
+    public static final int RECENT_DAYS = 7;
+    public static final long QUERY_RETENTION_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int STATE_VERSION = 1;
+
+    public enum Category {
+        PROJECT,
+        LANGUAGE,
+        ENTITY
+    }
+
+    private static class Dimension {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private String[] names = new String[8];
+        private long[] millis = new long[8];
+        private int size;
+
+        private int idOf(String name) {
+            Integer id = ids.get(name);
+            if (id != null)
+                return id;
+
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size * 2);
+                millis = Arrays.copyOf(millis, size * 2);
+            }
+
+            names[size] = name;
+            ids.put(name, size);
+            return size++;
+        }
+
+        private void add(String name, long duration) {
+            if (name != null) {
+                millis[idOf(name)] += duration;
+            }
+        }
+
+        private long get(String name) {
+            Integer id = ids.get(name);
+            return id == null ? 0 : millis[id];
+        }
+    }
+
+    private record PendingHeartbeat(long timestamp, String project, String language, String entity) {
+    }
+
+    private record DayView(long totalMillis, List<Map<String, Long>> breakdowns) {
+        private static final DayView EMPTY = new DayView(0,
+                Arrays.stream(Category.values()).map(category -> Map.<String, Long>of()).toList());
+    }
+
+    private static class Day {
+        private final Dimension[] dimensions = new Dimension[Category.values().length];
+        private long totalMillis;
+        private boolean dirty;
+        private DayView view;
+
+        private Day() {
+            for (int i = 0; i < dimensions.length; i++) {
+                dimensions[i] = new Dimension();
+            }
+        }
+    }
+
+    private final Path directory;
+    private final long timeoutMillis;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final Executor refreshExecutor;
+    private final Map<LocalDate, Day> days = new HashMap<>();
+    private final Map<LocalDate, Long> queriedDays = new ConcurrentHashMap<>();
+    private volatile Map<LocalDate, DayView> views = Map.of();
+
+    private final List<PendingHeartbeat> pending = new ArrayList<>();
+
+    private long revision = -1;
+    private boolean stateDirty;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private String lastProject;
+    private String lastLanguage;
+    private String lastEntity;
+
+    /**
+     * @param directory       the directory the daily snapshot files are stored in
+     * @param timeoutMillis   the longest gap between two heartbeats that still counts as activity
+     * @param refreshExecutor runs {@link #refresh()} when a day outside of the current view is queried
+     */
+    public ActivityAggregator(Path directory, long timeoutMillis, Executor refreshExecutor) {
+        this.directory = directory;
+        this.timeoutMillis = timeoutMillis;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * Adds a batch of heartbeats to the aggregates. Heartbeats are counted once they leave the reorder window.
+     *
+     * @param heartbeats the heartbeats to add, in any order
+     */
+    public synchronized void consume(List<Heartbeat> heartbeats) {
+        for (Heartbeat heartbeat : heartbeats) {
+            if (heartbeat.getTimestamp() == null)
+                continue;
+
+            pending.add(new PendingHeartbeat(heartbeat.getTimestamp().movePointRight(3).longValue(),
+                    heartbeat.getProject(), heartbeat.getLanguage(), heartbeat.getEntity()));
+            stateDirty = true;
+        }
+
+        advance(System.currentTimeMillis());
+    }
+
+    /**
+     * Counts every pending heartbeat that is older than the reorder window.
+     *
+     * @param now the current time in milliseconds
+     */
+    public synchronized void advance(long now) {
+        pending.sort(Comparator.comparingLong(PendingHeartbeat::timestamp));
+
+        long horizon = now - REORDER_WINDOW_MILLIS;
+        int ready = 0;
+        PendingHeartbeat late = null;
+        while (ready < pending.size() && pending.get(ready).timestamp() <= horizon) {
+            PendingHeartbeat heartbeat = pending.get(ready++);
+            if (heartbeat.timestamp() >= lastTimestamp) {
+                if (lastTimestamp != Long.MIN_VALUE) {
+                    credit(lastTimestamp, heartbeat.timestamp(), lastProject, lastLanguage, lastEntity);
+                }
+
+                lastTimestamp = heartbeat.timestamp();
+                lastProject = heartbeat.project();
+                lastLanguage = heartbeat.language();
+                lastEntity = heartbeat.entity();
+            } else {
+                // Older than the reorder window allows for, so it is only counted against the other late heartbeats
+                if (late != null) {
+                    credit(late.timestamp(), heartbeat.timestamp(), late.project(), late.language(), late.entity());
+                }
+
+                late = heartbeat;
+            }
+        }
+
+        if (ready > 0) {
+            pending.subList(0, ready).clear();
+            stateDirty = true;
+        }
+    }
+
+    /**
+     * @return true if heartbeats are still waiting in the reorder window
+     */
+    public synchronized boolean hasPendingHeartbeats() {
+        return !pending.isEmpty();
+    }
+
+    private void credit(long from, long to, String project, String language, String entity) {
+        long gap = to - from;
+        if (gap > timeoutMillis)
+            return;
+
+        Day day = getOrLoad(toDate(from));
+        day.totalMillis += gap;
+        day.dimensions[Category.PROJECT.ordinal()].add(project, gap);
+        day.dimensions[Category.LANGUAGE.ordinal()].add(language, gap);
+        day.dimensions[Category.ENTITY.ordinal()].add(entity, gap);
+        day.dirty = true;
+        day.view = null;
+    }
+
+    /**
+     * Queries only read days that are loaded into memory, see {@link #isLoaded(LocalDate)}.
+     * A day that is not loaded yet is loaded in the background and reads as 0 until then.
+     *
+     * @param date the day to query
+     * @return the total time spent on that day, in milliseconds
+     */
+    public long getTotalMillis(LocalDate date) {
+        return getView(date).totalMillis();
+    }
+
+    /**
+     * Days that are not loaded yet read as 0, see {@link #getTotalMillis(LocalDate)}.
+     *
+     * @param from the first day to query
+     * @param to   the last day to query, inclusive
+     * @return the total time spent in that range, in milliseconds
+     */
+    public long getTotalMillis(LocalDate from, LocalDate to) {
+        long total = 0;
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            total += getView(date).totalMillis();
+        }
+
+        return total;
+    }
+
+    /**
+     * Days that are not loaded yet read as 0, see {@link #getTotalMillis(LocalDate)}.
+     *
+     * @param date     the day to query
+     * @param category the category the name belongs to
+     * @param name     the project, language or entity to query
+     * @return the time spent on that name on that day, in milliseconds
+     */
+    public long getMillis(LocalDate date, Category category, String name) {
+        return getView(date).breakdowns().get(category.ordinal()).getOrDefault(name, 0L);
+    }
+
+    /**
+     * Days that are not loaded yet read as empty, see {@link #getTotalMillis(LocalDate)}.
+     *
+     * @param date     the day to query
+     * @param category the category to break the day down by
+     * @return the time spent per name on that day in milliseconds, longest first
+     */
+    public Map<String, Long> getBreakdown(LocalDate date, Category category) {
+        return getView(date).breakdowns().get(category.ordinal());
+    }
+
+    /**
+     * Starts loading the day if needed, so that a caller can tell a day without activity from one that is not loaded yet.
+     *
+     * @param date the day to check
+     * @return true if queries for that day return its stored activity
+     */
+    public boolean isLoaded(LocalDate date) {
+        getView(date);
+        return views.containsKey(date);
+    }
+
+    /**
+     * Rebuilds the view served to queries, loading queried days from disk and evicting days outside of the view.
+     */
+    public synchronized void refresh() {
+        long now = System.currentTimeMillis();
+        queriedDays.values().removeIf(queriedAt -> now - queriedAt > QUERY_RETENTION_MILLIS);
+
+        Set<LocalDate> window = new HashSet<>(queriedDays.keySet());
+        LocalDate today = LocalDate.now(zone);
+        for (int i = 0; i < RECENT_DAYS; i++) {
+            window.add(today.minusDays(i));
+        }
+
+        days.entrySet().removeIf(entry -> !entry.getValue().dirty && !window.contains(entry.getKey()));
+
+        Map<LocalDate, DayView> newViews = new HashMap<>();
+        for (LocalDate date : window) {
+            Day day = days.get(date);
+            if (day == null) {
+                day = loadDay(date);
+                if (day == null) {
+                    newViews.put(date, DayView.EMPTY);
+                    continue;
+                }
+
+                days.put(date, day);
+            }
+
+            if (day.view == null) {
+                day.view = createView(day);
+            }
+
+            newViews.put(date, day.view);
+        }
+
+        views = Map.copyOf(newViews);
+    }
+
+    private DayView getView(LocalDate date) {
+        if (queriedDays.put(date, System.currentTimeMillis()) == null) {
+            refreshExecutor.execute(this::refresh);
+        }
+
+        return views.getOrDefault(date, DayView.EMPTY);
+    }
+
+    private static DayView createView(Day day) {
+        List<Map<String, Long>> breakdowns = new ArrayList<>();
+        for (Dimension dimension : day.dimensions) {
+            Integer[] order = new Integer[dimension.size];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+
+            Arrays.sort(order, (first, second) -> Long.compare(dimension.millis[second], dimension.millis[first]));
+
+            Map<String, Long> breakdown = new LinkedHashMap<>();
+            for (int id : order) {
+                breakdown.put(dimension.names[id], dimension.millis[id]);
+            }
+
+            breakdowns.add(Collections.unmodifiableMap(breakdown));
+        }
+
+        return new DayView(day.totalMillis, List.copyOf(breakdowns));
+    }
+
+    /**
+     * Writes the snapshot of every day that changed since the last flush, followed by the shared state.
+     *
+     * @throws IOException if a snapshot could not be written
+     */
+    public synchronized void flush() throws IOException {
+        for (Map.Entry<LocalDate, Day> entry : days.entrySet()) {
+            Day day = entry.getValue();
+            if (!day.dirty)
+                continue;
+
+            writeSnapshot(day, getSnapshotPath(entry.getKey()));
+            day.dirty = false;
+        }
+
+        if (stateDirty) {
+            writeState(Math.max(revision, readRevision()) + 1);
+        }
+    }
+
+    /**
+     * Reloads the shared state and drops every cached day if another instance flushed since the last reload or flush.
+     * This must be called before consuming heartbeats after becoming the leader.
+     */
+    public synchronized void reloadIfChanged() {
+        long currentRevision = readRevision();
+        if (currentRevision == revision)
+            return;
+
+        try {
+            readState();
+        } catch (IOException exception) {
+            return;
+        }
+
+        days.values().removeIf(day -> !day.dirty);
+    }
+
+    private LocalDate toDate(long timestamp) {
+        return Instant.ofEpochMilli(timestamp).atZone(zone).toLocalDate();
+    }
+
+    private Path getStatePath() {
+        return directory.resolve("state.bin");
+    }
+
+    private long readRevision() {
+        Path state = getStatePath();
+        if (!Files.exists(state))
+            return -1;
+
+        try (var input = new DataInputStream(Files.newInputStream(state))) {
+            return input.readInt() == STATE_VERSION ? input.readLong() : -1;
+        } catch (IOException exception) {
+            return -1;
+        }
+    }
+
+    private void readState() throws IOException {
+        try (var input = new DataInputStream(Files.newInputStream(getStatePath()))) {
+            if (input.readInt() != STATE_VERSION)
+                throw new IOException("Unsupported state version in " + getStatePath());
+
+            long stateRevision = input.readLong();
+            long stateLastTimestamp = input.readLong();
+            String stateLastProject = readNullableUTF(input);
+            String stateLastLanguage = readNullableUTF(input);
+            String stateLastEntity = readNullableUTF(input);
+            int count = input.readInt();
+            List<PendingHeartbeat> statePending = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                statePending.add(new PendingHeartbeat(input.readLong(), readNullableUTF(input), readNullableUTF(input), readNullableUTF(input)));
+            }
+
+            revision = stateRevision;
+            lastTimestamp = stateLastTimestamp;
+            lastProject = stateLastProject;
+            lastLanguage = stateLastLanguage;
+            lastEntity = stateLastEntity;
+            pending.clear();
+            pending.addAll(statePending);
+            stateDirty = false;
+        }
+    }
+
+    private void writeState(long newRevision) throws IOException {
+        Path state = getStatePath();
+        Files.createDirectories(state.getParent());
+        Path temporary = state.resolveSibling(state.getFileName() + ".tmp");
+        try (var output = new DataOutputStream(Files.newOutputStream(temporary))) {
+            output.writeInt(STATE_VERSION);
+            output.writeLong(newRevision);
+            output.writeLong(lastTimestamp);
+            writeNullableUTF(output, lastProject);
+            writeNullableUTF(output, lastLanguage);
+            writeNullableUTF(output, lastEntity);
+            output.writeInt(pending.size());
+            for (PendingHeartbeat heartbeat : pending) {
+                output.writeLong(heartbeat.timestamp());
+                writeNullableUTF(output, heartbeat.project());
+                writeNullableUTF(output, heartbeat.language());
+                writeNullableUTF(output, heartbeat.entity());
+            }
+        }
+
+        Files.move(temporary, state, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        revision = newRevision;
+        stateDirty = false;
+    }
+
+    private static String readNullableUTF(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    private static void writeNullableUTF(DataOutputStream output, String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    private Path getSnapshotPath(LocalDate date) {
+        return directory.resolve(date + ".bin");
+    }
+
+    private Day getOrLoad(LocalDate date) {
+        Day day = days.get(date);
+        if (day == null) {
+            day = loadDay(date);
+            if (day == null) {
+                day = new Day();
+            }
+
+            days.put(date, day);
+        }
+
+        return day;
+    }
+
+    private Day loadDay(LocalDate date) {
+        Path snapshot = getSnapshotPath(date);
+        if (!Files.exists(snapshot))
+            return null;
+
+        try {
+            return readSnapshot(snapshot);
+        } catch (IOException exception) {
+            return null;
+        }
+    }
+
+    private static void writeSnapshot(Day day, Path snapshot) throws IOException {
+        Files.createDirectories(snapshot.getParent());
+        Path temporary = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (var output = new DataOutputStream(Files.newOutputStream(temporary))) {
+            output.writeInt(SNAPSHOT_VERSION);
+            output.writeLong(day.totalMillis);
+            for (Dimension dimension : day.dimensions) {
+                output.writeInt(dimension.size);
+                for (int i = 0; i < dimension.size; i++) {
+                    output.writeUTF(dimension.names[i]);
+                    output.writeLong(dimension.millis[i]);
+                }
+            }
+        }
+
+        Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Day readSnapshot(Path snapshot) throws IOException {
+        try (var input = new DataInputStream(Files.newInputStream(snapshot))) {
+            if (input.readInt() != SNAPSHOT_VERSION)
+                throw new IOException("Unsupported snapshot version in " + snapshot);
+
+            Day day = new Day();
+            day.totalMillis = input.readLong();
+            for (Dimension dimension : day.dimensions) {
+                int size = input.readInt();
+                for (int i = 0; i < size; i++) {
+                    dimension.add(input.readUTF(), input.readLong());
+                }
+            }
+
+            return day;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.FrostyFlippper;
+
+import javafx.application.Platform;
+import javafx.beans.value.ChangeListener;
+import javafx.collections.ListChangeListener;
+import javafx.event.EventHandler;
+import javafx.scene.input.InputEvent;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.stage.Window;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Tracks window focus and the time of the last user input so that the plugin only wakes up
+ * while the user is actually working. When the user goes idle the periodic task is cancelled,
+ * and the next input reschedules it immediately.
+ */
+public class ActivityGate {
+    private final ScheduledExecutorService scheduler;
+    private final Runnable task;
+    private final long periodSeconds;
+    private final long idleTimeoutMillis;
+    private final BooleanSupplier hasPendingWork;
+
+    private final EventHandler<InputEvent> inputFilter = event -> recordInput();
+    private final ChangeListener<Boolean> focusListener = (observable, oldValue, newValue) -> updateFocus();
+    private final ListChangeListener<Window> windowListener = change -> {
+        while (change.next()) {
+            change.getAddedSubList().forEach(this::attach);
+            change.getRemoved().forEach(this::detach);
+        }
+        updateFocus();
+    };
+
+    private volatile long lastInputMillis = System.currentTimeMillis();
+    private volatile boolean focused = true;
+    private volatile ScheduledFuture<?> future;
+    private volatile boolean closed;
+
+    /**
+     * @param scheduler         the scheduler that runs the periodic task
+     * @param task              the task to run while the user is active
+     * @param periodSeconds     the period between two runs of the task
+     * @param idleTimeoutMillis the time without input after which the user is considered idle
+     * @param hasPendingWork    whether the task still has work to do, the task keeps running until this returns false
+     */
+    public ActivityGate(ScheduledExecutorService scheduler, Runnable task, long periodSeconds, long idleTimeoutMillis, BooleanSupplier hasPendingWork) {
+        this.scheduler = scheduler;
+        this.task = task;
+        this.periodSeconds = periodSeconds;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.hasPendingWork = hasPendingWork;
+    }
+
+    /**
+     * Starts the periodic task and begins listening for focus changes and input on every JavaFX window.
+     */
+    public void install() {
+        resume();
+        Platform.runLater(() -> {
+            Window.getWindows().forEach(this::attach);
+            Window.getWindows().addListener(windowListener);
+            updateFocus();
+        });
+    }
+
+    /**
+     * Stops the periodic task and removes all listeners added by {@link #install()}.
+     */
+    public void uninstall() {
+        synchronized (this) {
+            closed = true;
+            if (future != null) {
+                future.cancel(false);
+                future = null;
+            }
+        }
+
+        Platform.runLater(() -> {
+            Window.getWindows().removeListener(windowListener);
+            Window.getWindows().forEach(this::detach);
+        });
+    }
+
+    /**
+     * Records user input, resuming the periodic task if it was stopped.
+     */
+    public void recordInput() {
+        lastInputMillis = System.currentTimeMillis();
+        wake();
+    }
+
+    /**
+     * Resumes the periodic task if it was stopped, without counting as input.
+     * Used when work is queued while the user is idle or unfocused, so that it is still dispatched.
+     */
+    public void wake() {
+        ScheduledFuture<?> current = future;
+        if (current == null || current.isDone()) {
+            resume();
+        }
+    }
+
+    /**
+     * Records editor activity reported by the IDE, which only counts as input while one of our windows is focused.
+     */
+    public void recordEditorActivity() {
+        if (focused) {
+            recordInput();
+        }
+    }
+
+    /**
+     * @return true if a window is focused and the user has provided input within the idle timeout
+     */
+    public boolean isActive() {
+        return focused && System.currentTimeMillis() - lastInputMillis < idleTimeoutMillis;
+    }
+
+    private synchronized void resume() {
+        if (closed || (future != null && !future.isDone()))
+            return;
+
+        future = scheduler.scheduleAtFixedRate(this::tick, 0, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    private void tick() {
+        try {
+            task.run();
+        } finally {
+            synchronized (this) {
+                if (future != null && !isActive() && !hasPendingWork.getAsBoolean()) {
+                    future.cancel(false);
+                    future = null;
+                }
+            }
+        }
+    }
+
+    private void updateFocus() {
+        boolean anyFocused = Window.getWindows().stream().anyMatch(Window::isFocused);
+        focused = anyFocused;
+        if (anyFocused) {
+            recordInput();
+        }
+    }
+
+    private void attach(Window window) {
+        window.focusedProperty().addListener(focusListener);
+        window.addEventFilter(KeyEvent.KEY_PRESSED, inputFilter);
+        window.addEventFilter(MouseEvent.MOUSE_PRESSED, inputFilter);
+        window.addEventFilter(ScrollEvent.SCROLL, inputFilter);
+    }
+
+    private void detach(Window window) {
+        window.focusedProperty().removeListener(focusListener);
+        window.removeEventFilter(KeyEvent.KEY_PRESSED, inputFilter);
+        window.removeEventFilter(MouseEvent.MOUSE_PRESSED, inputFilter);
+        window.removeEventFilter(ScrollEvent.SCROLL, inputFilter);
+    }
+}
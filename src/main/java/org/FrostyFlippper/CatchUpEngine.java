@@ -0,0 +1,277 @@
+package org.FrostyFlippper;
+
+import dev.railroadide.logger.Logger;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Sends a large backlog of heartbeats in bounded chunks using several concurrent CLI processes,
+ * independently of the regular heartbeat dispatch so that live heartbeats keep flowing.
+ * <p>
+ * Concurrency is adapted to the responses of the CLI: it grows by one worker after every successful chunk,
+ * and is halved with an exponentially growing pause whenever the CLI reports that it is being rate limited.
+ * Only chunks started after the last back off affect concurrency, so chunks that were already in flight cannot undo it.
+ * A rate limited chunk is not sent again, since the CLI has already stored it in its own offline queue.
+ * <p>
+ * When nothing can be sent, because there is no API key or the CLI cannot be started, the backlog is parked
+ * until {@link #resume()} is called instead of being retried.
+ */
+public class CatchUpEngine implements AutoCloseable {
+    public static final int CHUNK_SIZE = 100;
+    public static final int MAX_PENDING_HEARTBEATS = 100_000;
+
+    private static final int EXIT_SUCCESS = 0;
+    private static final int EXIT_BACKOFF = 112;
+    private static final long INITIAL_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Sends a chunk of heartbeats and waits for the result.
+     */
+    @FunctionalInterface
+    public interface BatchSender {
+        /**
+         * @param heartbeats the heartbeats to send
+         * @return the exit code of the Wakatime CLI
+         * @throws IOException          if the CLI could not be started
+         * @throws InterruptedException if interrupted while waiting for the CLI to exit
+         */
+        int send(List<Heartbeat> heartbeats) throws IOException, InterruptedException;
+    }
+
+    /**
+     * A snapshot of the catch-up progress.
+     *
+     * @param sent        the number of heartbeats sent since the backlog was detected
+     * @param total       the number of heartbeats in the backlog
+     * @param concurrency the number of chunks currently allowed to be sent at once
+     */
+    public record Progress(long sent, long total, int concurrency) {
+    }
+
+    private final Logger logger;
+    private final BatchSender sender;
+    private final BooleanSupplier canSend;
+    private final int maxWorkers;
+    private final ExecutorService executor;
+    private final Deque<List<Heartbeat>> chunks = new ArrayDeque<>();
+
+    private int pendingHeartbeats;
+    private int workers;
+    private int inFlight;
+    private int concurrency;
+    private long backoffMillis;
+    private long resumeAt;
+    private int generation;
+    private long sent;
+    private long total;
+    private boolean parked;
+    private boolean closed;
+
+    /**
+     * @param logger     the logger to report progress to
+     * @param sender     sends a single chunk of heartbeats
+     * @param canSend    whether chunks can be sent at all, for example because an API key is set
+     * @param maxWorkers the maximum number of chunks sent at once
+     */
+    public CatchUpEngine(Logger logger, BatchSender sender, BooleanSupplier canSend, int maxWorkers) {
+        this.logger = logger;
+        this.sender = sender;
+        this.canSend = canSend;
+        this.maxWorkers = Math.max(1, maxWorkers);
+        this.concurrency = this.maxWorkers;
+        this.executor = Executors.newFixedThreadPool(this.maxWorkers);
+    }
+
+    /**
+     * Splits the heartbeats into chunks and queues them for sending.
+     * If the backlog grows past {@link #MAX_PENDING_HEARTBEATS}, the oldest chunks are dropped.
+     *
+     * @param heartbeats the heartbeats to send
+     */
+    public synchronized void submit(List<Heartbeat> heartbeats) {
+        if (closed || heartbeats.isEmpty())
+            return;
+
+        if (!isRunning()) {
+            sent = 0;
+            total = 0;
+        }
+
+        for (int start = 0; start < heartbeats.size(); start += CHUNK_SIZE) {
+            List<Heartbeat> chunk = new ArrayList<>(heartbeats.subList(start, Math.min(start + CHUNK_SIZE, heartbeats.size())));
+            chunks.addLast(chunk);
+            pendingHeartbeats += chunk.size();
+            total += chunk.size();
+        }
+
+        while (pendingHeartbeats > MAX_PENDING_HEARTBEATS) {
+            List<Heartbeat> dropped = chunks.pollFirst();
+            pendingHeartbeats -= dropped.size();
+            total -= dropped.size();
+            logger.warn("Catch-up backlog is full, dropped {} heartbeats", dropped.size());
+        }
+
+        logger.info("Catching up on {} heartbeats with up to {} workers", pendingHeartbeats, maxWorkers);
+        startWorkers();
+    }
+
+    /**
+     * Resumes sending a parked backlog.
+     */
+    public synchronized void resume() {
+        if (!parked || closed)
+            return;
+
+        parked = false;
+        startWorkers();
+    }
+
+    private void startWorkers() {
+        if (parked)
+            return;
+
+        while (workers < maxWorkers && workers < chunks.size()) {
+            workers++;
+            executor.execute(this::runWorker);
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * @return true if there are chunks waiting or being sent
+     */
+    public synchronized boolean isRunning() {
+        return !chunks.isEmpty() || inFlight > 0;
+    }
+
+    /**
+     * @return a snapshot of the current progress
+     */
+    public synchronized Progress getProgress() {
+        return new Progress(sent, total, concurrency);
+    }
+
+    private void runWorker() {
+        while (true) {
+            List<Heartbeat> chunk;
+            int chunkGeneration;
+            synchronized (this) {
+                try {
+                    while (!closed && !parked && !chunks.isEmpty() && (inFlight >= concurrency || System.currentTimeMillis() < resumeAt)) {
+                        long delay = resumeAt - System.currentTimeMillis();
+                        if (delay > 0) {
+                            wait(delay);
+                        } else {
+                            wait();
+                        }
+                    }
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                }
+
+                chunk = closed || parked || Thread.currentThread().isInterrupted() ? null : chunks.pollFirst();
+                if (chunk == null) {
+                    workers--;
+                    return;
+                }
+
+                pendingHeartbeats -= chunk.size();
+                inFlight++;
+                chunkGeneration = generation;
+            }
+
+            int exitCode = EXIT_SUCCESS;
+            boolean send = canSend.getAsBoolean();
+            if (send) {
+                try {
+                    exitCode = sender.send(chunk);
+                } catch (IOException | RuntimeException exception) {
+                    logger.error("Error starting Wakatime CLI process for catch-up!", exception);
+                    send = false;
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    send = false;
+                }
+            }
+
+            synchronized (this) {
+                inFlight--;
+                if (send) {
+                    onChunkSent(chunk, exitCode, chunkGeneration);
+                } else {
+                    park(chunk);
+                }
+
+                notifyAll();
+            }
+        }
+    }
+
+    private void park(List<Heartbeat> chunk) {
+        chunks.addFirst(chunk);
+        pendingHeartbeats += chunk.size();
+        if (!parked) {
+            parked = true;
+            logger.warn("Unable to send heartbeats, parking a catch-up backlog of {} heartbeats", pendingHeartbeats);
+        }
+    }
+
+    private void onChunkSent(List<Heartbeat> chunk, int exitCode, int chunkGeneration) {
+        boolean current = chunkGeneration == generation;
+        if (exitCode == EXIT_BACKOFF) {
+            if (current) {
+                generation++;
+                concurrency = Math.max(1, concurrency / 2);
+                backoffMillis = Math.min(MAX_BACKOFF_MILLIS, Math.max(INITIAL_BACKOFF_MILLIS, backoffMillis * 2));
+                resumeAt = System.currentTimeMillis() + backoffMillis;
+            }
+
+            logger.warn("Wakatime CLI asked to back off and keeps {} heartbeats offline, pausing for {}s with {} workers",
+                    chunk.size(), backoffMillis / 1000, concurrency);
+        } else {
+            if (exitCode != EXIT_SUCCESS) {
+                logger.warn("Wakatime CLI exited with code {} while catching up, it keeps the {} heartbeats offline", exitCode, chunk.size());
+            }
+
+            if (current) {
+                concurrency = Math.min(maxWorkers, concurrency + 1);
+                backoffMillis = 0;
+            }
+        }
+
+        sent += chunk.size();
+        logger.info("Catch-up progress: {}/{} heartbeats sent", sent, total);
+    }
+
+    /**
+     * Stops sending and returns the heartbeats that were not sent yet.
+     *
+     * @return the heartbeats still waiting in the backlog
+     */
+    public synchronized List<Heartbeat> shutdown() {
+        closed = true;
+        notifyAll();
+        executor.shutdown();
+
+        List<Heartbeat> remaining = new ArrayList<>(pendingHeartbeats);
+        chunks.forEach(remaining::addAll);
+        chunks.clear();
+        pendingHeartbeats = 0;
+        return remaining;
+    }
+
+    @Override
+    public void close() {
+        shutdown();
+    }
+}
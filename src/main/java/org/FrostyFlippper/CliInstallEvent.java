@@ -0,0 +1,26 @@
+package org.FrostyFlippper;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorded for each step of installing the Wakatime CLI on startup.
+ */
+@Name("org.FrostyFlippper.CliInstall")
+@Label("Wakatime CLI Install")
+@Category({"Wakatime", "CLI"})
+@Description("Download or unzip of the Wakatime CLI")
+public class CliInstallEvent extends jdk.jfr.Event {
+    @Label("Stage")
+    public String stage;
+
+    @Label("Version")
+    public String version;
+
+    @Label("Archive Size")
+    @DataAmount(DataAmount.BYTES)
+    public long archiveSize;
+}
@@ -0,0 +1,22 @@
+package org.FrostyFlippper;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorded for every Wakatime CLI process, spanning from its start until it exits.
+ */
+@Name("org.FrostyFlippper.CliProcess")
+@Label("Wakatime CLI Process")
+@Category({"Wakatime", "CLI"})
+@Description("A Wakatime CLI process sending a batch of heartbeats")
+public class CliProcessEvent extends jdk.jfr.Event {
+    @Label("Batch Size")
+    @Description("Number of heartbeats sent by the CLI invocation, including the one passed as arguments")
+    public int batchSize;
+
+    @Label("Exit Code")
+    public int exitCode;
+}
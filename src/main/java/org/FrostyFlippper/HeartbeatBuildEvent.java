@@ -0,0 +1,27 @@
+package org.FrostyFlippper;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Recorded for every heartbeat built by the listeners, including the time spent counting lines.
+ */
+@Name("org.FrostyFlippper.HeartbeatBuild")
+@Label("Heartbeat Build")
+@Category({"Wakatime", "Heartbeats"})
+@Description("Construction of a heartbeat from an open document")
+public class HeartbeatBuildEvent extends jdk.jfr.Event {
+    @Label("Entity Size")
+    @Description("Length of the document content in characters")
+    public long entitySize;
+
+    @Label("Line Count")
+    public int lineCount;
+
+    @Label("Line Count Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    public long lineCountDuration;
+}
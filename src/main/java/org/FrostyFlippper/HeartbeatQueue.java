@@ -0,0 +1,197 @@
+package org.FrostyFlippper;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * A heartbeat queue split into priority lanes. Lanes are drained in declaration order,
+ * and only bounded lanes shed their oldest heartbeats once they are full.
+ */
+public class HeartbeatQueue {
+    public enum Lane {
+        /**
+         * Save and activation heartbeats, which are dispatched first and never dropped.
+         */
+        PRIORITY(Integer.MAX_VALUE),
+        /**
+         * High-volume modification heartbeats, which are shed first under pressure.
+         */
+        MODIFICATION(1000);
+
+        private final int capacity;
+
+        Lane(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+    }
+
+    /**
+     * A snapshot of the metrics for a single lane.
+     *
+     * @param size              the number of heartbeats currently waiting in the lane
+     * @param dispatched        the total number of heartbeats drained from the lane
+     * @param dropped           the total number of heartbeats shed because the lane was full
+     * @param averageLatencyMs  the average time a drained heartbeat waited in the lane
+     * @param maxLatencyMs      the longest time a drained heartbeat waited in the lane
+     */
+    public record LaneMetrics(int size, long dispatched, long dropped, double averageLatencyMs, double maxLatencyMs) {
+    }
+
+    private record Entry(Heartbeat heartbeat, long enqueuedNanos) {
+    }
+
+    private static class LaneState {
+        private final ConcurrentLinkedDeque<Entry> entries = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final LongAdder dropped = new LongAdder();
+        private long dispatched;
+        private long totalLatencyNanos;
+        private long maxLatencyNanos;
+    }
+
+    private final Map<Lane, LaneState> lanes = new EnumMap<>(Lane.class);
+
+    public HeartbeatQueue() {
+        for (Lane lane : Lane.values()) {
+            lanes.put(lane, new LaneState());
+        }
+    }
+
+    /**
+     * Adds a heartbeat to the given lane, dropping the oldest heartbeat in that lane if it is full.
+     *
+     * @param lane      the lane to add the heartbeat to
+     * @param heartbeat the heartbeat to add
+     * @return false if a heartbeat had to be dropped to make room
+     */
+    public boolean add(Lane lane, Heartbeat heartbeat) {
+        LaneState state = lanes.get(lane);
+        state.entries.add(new Entry(heartbeat, System.nanoTime()));
+
+        boolean dropped = false;
+        if (state.size.incrementAndGet() > lane.getCapacity() && state.entries.poll() != null) {
+            state.size.decrementAndGet();
+            state.dropped.increment();
+            dropped = true;
+        }
+
+        commitQueueEvent("enqueue", lane, 1, dropped);
+        return !dropped;
+    }
+
+    /**
+     * Removes every waiting heartbeat, highest priority lane first.
+     *
+     * @return the drained heartbeats in dispatch order
+     */
+    public synchronized List<Heartbeat> drain() {
+        List<Heartbeat> heartbeats = new ArrayList<>();
+        for (Lane lane : Lane.values()) {
+            heartbeats.addAll(drain(lane));
+        }
+
+        return heartbeats;
+    }
+
+    /**
+     * Removes every waiting heartbeat from a single lane.
+     *
+     * @param lane the lane to drain
+     * @return the drained heartbeats in the order they were added
+     */
+    public synchronized List<Heartbeat> drain(Lane lane) {
+        List<Heartbeat> heartbeats = new ArrayList<>();
+        LaneState state = lanes.get(lane);
+        long now = System.nanoTime();
+        Entry entry;
+        while ((entry = state.entries.poll()) != null) {
+            state.size.decrementAndGet();
+            long latency = now - entry.enqueuedNanos();
+            state.dispatched++;
+            state.totalLatencyNanos += latency;
+            state.maxLatencyNanos = Math.max(state.maxLatencyNanos, latency);
+            heartbeats.add(entry.heartbeat());
+        }
+
+        if (!heartbeats.isEmpty()) {
+            commitQueueEvent("dequeue", lane, heartbeats.size(), false);
+        }
+
+        return heartbeats;
+    }
+
+    /**
+     * Hands every waiting heartbeat of a lane to another queue, such as the shared spool, without counting them
+     * as dispatched. Heartbeats the sink does not accept are put back at the head of the lane with their
+     * original enqueue time, and are never dropped by this call.
+     *
+     * @param lane the lane to transfer
+     * @param sink accepts the heartbeats in order and returns the trailing heartbeats it could not accept
+     */
+    public synchronized void transfer(Lane lane, UnaryOperator<List<Heartbeat>> sink) {
+        LaneState state = lanes.get(lane);
+        List<Entry> entries = new ArrayList<>();
+        Entry entry;
+        while ((entry = state.entries.poll()) != null) {
+            state.size.decrementAndGet();
+            entries.add(entry);
+        }
+
+        if (entries.isEmpty())
+            return;
+
+        List<Heartbeat> rejected = sink.apply(entries.stream().map(Entry::heartbeat).toList());
+        for (int i = entries.size() - 1; i >= entries.size() - rejected.size(); i--) {
+            state.entries.addFirst(entries.get(i));
+            state.size.incrementAndGet();
+        }
+    }
+
+    private static void commitQueueEvent(String operation, Lane lane, int batchSize, boolean dropped) {
+        var event = new HeartbeatQueueEvent();
+        if (!event.shouldCommit())
+            return;
+
+        event.operation = operation;
+        event.lane = lane.name();
+        event.batchSize = batchSize;
+        event.dropped = dropped;
+        event.commit();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int size() {
+        int size = 0;
+        for (LaneState state : lanes.values()) {
+            size += state.size.get();
+        }
+
+        return size;
+    }
+
+    /**
+     * @param lane the lane to get the metrics of
+     * @return a snapshot of the metrics for the lane
+     */
+    public synchronized LaneMetrics getMetrics(Lane lane) {
+        LaneState state = lanes.get(lane);
+        double averageLatency = state.dispatched == 0 ? 0 : (double) state.totalLatencyNanos / state.dispatched;
+        return new LaneMetrics(state.size.get(), state.dispatched, state.dropped.sum(),
+                averageLatency / TimeUnit.MILLISECONDS.toNanos(1),
+                (double) state.maxLatencyNanos / TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,28 @@
+package org.FrostyFlippper;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorded when heartbeats are added to or drained from a {@link HeartbeatQueue} lane.
+ */
+@Name("org.FrostyFlippper.HeartbeatQueue")
+@Label("Heartbeat Queue Operation")
+@Category({"Wakatime", "Heartbeats"})
+@Description("Enqueue or dequeue of heartbeats in a priority lane")
+public class HeartbeatQueueEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    public String operation;
+
+    @Label("Lane")
+    public String lane;
+
+    @Label("Batch Size")
+    public int batchSize;
+
+    @Label("Dropped")
+    @Description("Whether an older heartbeat was dropped because the lane was full")
+    public boolean dropped;
+}
@@ -0,0 +1,26 @@
+package org.FrostyFlippper;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorded for every IDE event handled by the plugin's listeners, spanning the whole listener.
+ */
+@Name("org.FrostyFlippper.HeartbeatReceipt")
+@Label("Heartbeat Event Receipt")
+@Category({"Wakatime", "Heartbeats"})
+@Description("Handling of an IDE file event by the Wakatime listeners")
+public class HeartbeatReceiptEvent extends jdk.jfr.Event {
+    @Label("Event Type")
+    public String eventType;
+
+    @Label("Entity Size")
+    @Description("Length of the document content in characters")
+    public long entitySize;
+
+    @Label("Queued")
+    @Description("Whether the event resulted in a heartbeat being queued")
+    public boolean queued;
+}
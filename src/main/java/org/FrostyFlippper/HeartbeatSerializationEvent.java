@@ -0,0 +1,24 @@
+package org.FrostyFlippper;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorded when a batch of heartbeats is serialized to JSON for the Wakatime CLI.
+ */
+@Name("org.FrostyFlippper.HeartbeatSerialization")
+@Label("Heartbeat Batch Serialization")
+@Category({"Wakatime", "Heartbeats"})
+@Description("Serialization of the extra heartbeats passed to the Wakatime CLI")
+public class HeartbeatSerializationEvent extends jdk.jfr.Event {
+    @Label("Batch Size")
+    @Description("Number of heartbeats sent by the CLI invocation, including the one passed as arguments")
+    public int batchSize;
+
+    @Label("Serialized Size")
+    @DataAmount(DataAmount.BYTES)
+    public long serializedSize;
+}
@@ -0,0 +1,193 @@
+package org.FrostyFlippper;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import dev.railroadide.core.gson.GsonLocator;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A memory-mapped file shared by every Railroad instance, which followers append heartbeats to
+ * and the leader drains. Access from different processes is serialized with a lock on a separate file.
+ * <p>
+ * The spool starts with a header holding the current write position, followed by records made up of
+ * the payload length, a tag and the heartbeat encoded as JSON. The tag holds the {@link HeartbeatQueue.Lane} ordinal,
+ * or {@link #AGGREGATED_TAG} for catch-up heartbeats that were already counted in the local activity aggregates.
+ */
+public class HeartbeatSpool implements AutoCloseable {
+    private static final Gson GSON = GsonLocator.getInstance();
+    private static final int CAPACITY = 4 * 1024 * 1024;
+    private static final int HEADER_SIZE = Integer.BYTES;
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES + Byte.BYTES;
+    private static final byte AGGREGATED_TAG = -1;
+
+    /**
+     * The heartbeats removed from the spool.
+     *
+     * @param heartbeats the heartbeats per lane, in the order they were appended
+     * @param aggregated the heartbeats appended with {@link #appendAggregated(List)}, in the order they were appended
+     */
+    public record Contents(Map<HeartbeatQueue.Lane, List<Heartbeat>> heartbeats, List<Heartbeat> aggregated) {
+    }
+
+    private final FileChannel spoolChannel;
+    private final FileChannel lockChannel;
+    private final MappedByteBuffer buffer;
+
+    private HeartbeatSpool(FileChannel spoolChannel, FileChannel lockChannel, MappedByteBuffer buffer) {
+        this.spoolChannel = spoolChannel;
+        this.lockChannel = lockChannel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Opens the spool in the given directory, creating it if it does not exist yet.
+     *
+     * @param directory the directory shared by every Railroad instance
+     * @return the opened spool
+     * @throws IOException if the spool could not be opened or mapped
+     */
+    public static HeartbeatSpool open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        FileChannel spoolChannel = FileChannel.open(directory.resolve("heartbeats.spool"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileChannel lockChannel = FileChannel.open(directory.resolve("heartbeats.spool.lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = spoolChannel.map(FileChannel.MapMode.READ_WRITE, 0, CAPACITY);
+            return new HeartbeatSpool(spoolChannel, lockChannel, buffer);
+        } catch (IOException exception) {
+            spoolChannel.close();
+            throw exception;
+        }
+    }
+
+    /**
+     * Appends heartbeats to the spool.
+     *
+     * @param lane       the lane the heartbeats should be dispatched in
+     * @param heartbeats the heartbeats to append
+     * @return the heartbeats that did not fit into the spool
+     * @throws IOException if the spool could not be locked
+     */
+    public List<Heartbeat> append(HeartbeatQueue.Lane lane, List<Heartbeat> heartbeats) throws IOException {
+        return append((byte) lane.ordinal(), heartbeats);
+    }
+
+    /**
+     * Appends heartbeats that were already counted in the local activity aggregates, such as unsent catch-up heartbeats.
+     *
+     * @param heartbeats the heartbeats to append
+     * @return the heartbeats that did not fit into the spool
+     * @throws IOException if the spool could not be locked
+     */
+    public List<Heartbeat> appendAggregated(List<Heartbeat> heartbeats) throws IOException {
+        return append(AGGREGATED_TAG, heartbeats);
+    }
+
+    private synchronized List<Heartbeat> append(byte tag, List<Heartbeat> heartbeats) throws IOException {
+        if (heartbeats.isEmpty())
+            return heartbeats;
+
+        try (FileLock ignored = lockChannel.lock()) {
+            int position = getWritePosition();
+            int appended = 0;
+            for (Heartbeat heartbeat : heartbeats) {
+                byte[] payload = GSON.toJson(heartbeat).getBytes(StandardCharsets.UTF_8);
+                if (position + RECORD_HEADER_SIZE + payload.length > CAPACITY)
+                    break;
+
+                buffer.putInt(position, payload.length);
+                buffer.put(position + Integer.BYTES, tag);
+                buffer.put(position + RECORD_HEADER_SIZE, payload);
+                position += RECORD_HEADER_SIZE + payload.length;
+                appended++;
+            }
+
+            buffer.putInt(0, position);
+            return heartbeats.subList(appended, heartbeats.size());
+        }
+    }
+
+    /**
+     * Removes every spooled heartbeat and empties the spool.
+     *
+     * @return the spooled heartbeats
+     * @throws IOException if the spool could not be locked
+     */
+    public synchronized Contents drain() throws IOException {
+        try (FileLock ignored = lockChannel.lock()) {
+            Map<HeartbeatQueue.Lane, List<Heartbeat>> heartbeats = new EnumMap<>(HeartbeatQueue.Lane.class);
+            List<Heartbeat> aggregated = new ArrayList<>();
+            int end = getWritePosition();
+            int position = HEADER_SIZE;
+            HeartbeatQueue.Lane[] lanes = HeartbeatQueue.Lane.values();
+            try {
+                while (position + RECORD_HEADER_SIZE <= end) {
+                    int length = buffer.getInt(position);
+                    byte tag = buffer.get(position + Integer.BYTES);
+                    if (length < 0 || position + RECORD_HEADER_SIZE + length > end || (tag != AGGREGATED_TAG && (tag < 0 || tag >= lanes.length)))
+                        break;
+
+                    byte[] payload = new byte[length];
+                    buffer.get(position + RECORD_HEADER_SIZE, payload);
+                    position += RECORD_HEADER_SIZE + length;
+
+                    Heartbeat heartbeat;
+                    try {
+                        heartbeat = GSON.fromJson(new String(payload, StandardCharsets.UTF_8), Heartbeat.class);
+                    } catch (JsonParseException exception) {
+                        // A corrupt record must not keep every later drain from emptying the spool
+                        continue;
+                    }
+
+                    if (heartbeat == null)
+                        continue;
+
+                    if (tag == AGGREGATED_TAG) {
+                        aggregated.add(heartbeat);
+                    } else {
+                        heartbeats.computeIfAbsent(lanes[tag], lane -> new ArrayList<>()).add(heartbeat);
+                    }
+                }
+            } finally {
+                buffer.putInt(0, HEADER_SIZE);
+            }
+
+            return new Contents(heartbeats, aggregated);
+        }
+    }
+
+    /**
+     * @return true if no heartbeats are waiting in the spool
+     */
+    public boolean isEmpty() {
+        return getWritePosition() <= HEADER_SIZE;
+    }
+
+    private int getWritePosition() {
+        int position = buffer.getInt(0);
+        return position < HEADER_SIZE || position > CAPACITY ? HEADER_SIZE : position;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        try {
+            lockChannel.close();
+        } finally {
+            spoolChannel.close();
+        }
+    }
+}
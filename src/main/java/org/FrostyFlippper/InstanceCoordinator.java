@@ -0,0 +1,81 @@
+package org.FrostyFlippper;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Elects a single leader between every Railroad instance running this plugin, using an exclusive lock on a shared file.
+ * The operating system releases the lock when the leader exits, so any follower can take over on its next attempt.
+ */
+public class InstanceCoordinator implements AutoCloseable {
+    private final Path lockFile;
+    private FileChannel channel;
+    private FileLock lock;
+
+    /**
+     * @param directory the directory shared by every Railroad instance
+     */
+    public InstanceCoordinator(Path directory) {
+        this.lockFile = directory.resolve("leader.lock");
+    }
+
+    /**
+     * Attempts to become the leader, without blocking.
+     *
+     * @return true if this instance is the leader
+     */
+    public synchronized boolean tryAcquireLeadership() {
+        if (isLeader())
+            return true;
+
+        try {
+            if (channel == null || !channel.isOpen()) {
+                Files.createDirectories(lockFile.getParent());
+                channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            }
+
+            lock = channel.tryLock();
+        } catch (IOException | OverlappingFileLockException exception) {
+            lock = null;
+        }
+
+        return isLeader();
+    }
+
+    /**
+     * @return true if this instance currently holds the leader lock
+     */
+    public synchronized boolean isLeader() {
+        return lock != null && lock.isValid();
+    }
+
+    /**
+     * Gives up leadership so that another instance can take over.
+     */
+    public synchronized void releaseLeadership() {
+        if (lock == null)
+            return;
+
+        try {
+            lock.release();
+        } catch (IOException ignored) {
+            // The lock is released when the channel is closed at the latest
+        }
+
+        lock = null;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        releaseLeadership();
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
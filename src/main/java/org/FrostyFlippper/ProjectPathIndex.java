@@ -0,0 +1,117 @@
+package org.FrostyFlippper;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Maps entity paths to the project whose root contains them, using a trie keyed on path segments.
+ * Resolved entities are cached until a project root is registered or remapped.
+ */
+public class ProjectPathIndex {
+    private static final int MAX_CACHED_ENTITIES = 1024;
+
+    /**
+     * The project and language a heartbeat for an entity should be attributed to.
+     *
+     * @param project  the project alias, or null if it could not be resolved
+     * @param language the language id of the entity
+     */
+    public record Attribution(String project, String language) {
+    }
+
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private String project;
+    }
+
+    private final Node root = new Node();
+    private final Map<Path, Attribution> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Attribution> eldest) {
+            return size() > MAX_CACHED_ENTITIES;
+        }
+    };
+
+    /**
+     * Registers a project root, invalidating cached entities if the mapping changed.
+     *
+     * @param projectRoot the root directory of the project
+     * @param project     the project alias
+     */
+    public synchronized void register(Path projectRoot, String project) {
+        Node node = root;
+        for (String segment : segments(projectRoot)) {
+            node = node.children.computeIfAbsent(segment, key -> new Node());
+        }
+
+        if (project.equals(node.project))
+            return;
+
+        node.project = project;
+        cache.clear();
+    }
+
+    /**
+     * Resolves the attribution of an entity, which is the project with the deepest root containing it.
+     *
+     * @param entity          the path of the entity
+     * @param language        supplies the language of the entity when it is not cached
+     * @param fallbackProject supplies the project when no registered root contains the entity,
+     *                        it may register new roots which are taken into account immediately
+     * @return the attribution of the entity
+     */
+    public synchronized Attribution resolve(Path entity, Supplier<String> language, Supplier<String> fallbackProject) {
+        Attribution attribution = cache.get(entity);
+        if (attribution != null)
+            return attribution;
+
+        String project = findProject(entity);
+        if (project == null) {
+            String fallback = fallbackProject.get();
+            project = findProject(entity);
+            if (project == null) {
+                project = fallback;
+            }
+        }
+
+        attribution = new Attribution(project, language.get());
+        cache.put(entity, attribution);
+        return attribution;
+    }
+
+    private String findProject(Path entity) {
+        Node node = root;
+        String project = null;
+        for (String segment : segments(entity)) {
+            node = node.children.get(segment);
+            if (node == null)
+                break;
+
+            if (node.project != null) {
+                project = node.project;
+            }
+        }
+
+        return project;
+    }
+
+    private static List<String> segments(Path path) {
+        Path normalized = path.toAbsolutePath().normalize();
+        Path pathRoot = normalized.getRoot();
+        List<String> segments = new ArrayList<>(normalized.getNameCount() + 1);
+        if (pathRoot != null) {
+            segments.add(pathRoot.toString());
+        }
+
+        for (Path name : normalized) {
+            segments.add(name.toString());
+        }
+
+        return segments;
+    }
+}
@@ -54,20 +54,37 @@ import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Queue;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class WakatimePlugin implements Plugin {
     private static final Gson GSON = GsonLocator.getInstance();
     private static Logger logger;
 
     public static final SecureTokenStore TOKEN_STORE = new SecureTokenStore("WakatimePlugin");
+    private static ActivityAggregator activityAggregator;
     private static ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(1);
+    private static final long HEARTBEAT_PERIOD_SECONDS = 30;
+    private static final long IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long PRIORITY_DISPATCH_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(2);
+    private static final int CATCH_UP_THRESHOLD = 500;
+    private static final int DEFAULT_CATCH_UP_WORKERS = 2;
+
+    private ActivityGate activityGate;
+    private InstanceCoordinator instanceCoordinator;
+    private HeartbeatSpool heartbeatSpool;
+    private HeartbeatQueue heartbeatQueue;
+    private CatchUpEngine catchUpEngine;
+    private Runnable priorityDispatch;
+    private final AtomicBoolean priorityDispatchScheduled = new AtomicBoolean();
+    private final ProjectPathIndex projectIndex = new ProjectPathIndex();
 
     private Setting<String> apiKeySetting;
     private Setting<String> proxySetting;
     private Setting<Boolean> doesShowInStatusBarSetting;
     private Setting<Boolean> isDebugSetting;
+    private Setting<String> catchUpWorkersSetting;
 
     public static final SettingCodec<String, TextField> API_KEY_CODEC =
             SettingCodec.<String, TextField>builder("wakatime:api_key")
@@ -131,6 +148,17 @@ public class WakatimePlugin implements Plugin {
                 .defaultValue(false)
                 .build();
 
+        catchUpWorkersSetting = Setting.builder(String.class, "wakatime:catch_up_workers")
+                .treePath("plugins.wakatime")
+                .title("wakatime.catch_up_workers.title")
+                .description("wakatime.catch_up_workers.description")
+                .codec(DefaultSettingCodecs.STRING)
+                .category(SettingCategory.builder("wakatime:category")
+                        .title("wakatime.category.title")
+                        .noDescription().build())
+                .defaultValue(String.valueOf(DEFAULT_CATCH_UP_WORKERS))
+                .build();
+
         settingRegistry.register(apiKeySetting.getId(), apiKeySetting);
         context.getLogger().info("Setting '" + apiKeySetting.getId() + "' registered.");
 
@@ -143,6 +171,9 @@ public class WakatimePlugin implements Plugin {
         settingRegistry.register(isDebugSetting.getId(), isDebugSetting);
         context.getLogger().info("Setting '" + isDebugSetting.getId() + "' registered.");
 
+        settingRegistry.register(catchUpWorkersSetting.getId(), catchUpWorkersSetting);
+        context.getLogger().info("Setting '" + catchUpWorkersSetting.getId() + "' registered.");
+
         Path wakatimeLocation = getWakatimeLocation();
         logger.debug("Wakatime location set to " + wakatimeLocation.toString());
 
@@ -163,16 +194,29 @@ public class WakatimePlugin implements Plugin {
 
         String osName = osname();
         String architecture = architecture();
+        var downloadEvent = new CliInstallEvent();
+        downloadEvent.begin();
         Path filePath = downloadWakatimeCLI(latestVersion, osName, architecture, wakatimeLocation);
+        downloadEvent.stage = "download";
+        downloadEvent.version = latestVersion;
+        downloadEvent.archiveSize = filePath == null ? 0 : filePath.toFile().length();
+        downloadEvent.commit();
         if (filePath == null)
             return;
 
+        var unzipEvent = new CliInstallEvent();
+        unzipEvent.begin();
+        unzipEvent.stage = "unzip";
+        unzipEvent.version = latestVersion;
+        unzipEvent.archiveSize = downloadEvent.archiveSize;
         try {
             FileUtil.unzipFile(filePath, wakatimeLocation);
             Files.delete(filePath);
         } catch (IOException exception) {
             logger.error("Error unzipping Wakatime CLI!", exception);
             return;
+        } finally {
+            unzipEvent.commit();
         }
 
         if (!isWindows()) {
@@ -183,12 +227,32 @@ public class WakatimePlugin implements Plugin {
         ApplicationInfoService applicationInfoService = context.getService(ApplicationInfoService.class);
         IDEStateService ideStateService = context.getService(IDEStateService.class);
 
-        Queue<Heartbeat> heartbeatQueue = new ConcurrentLinkedQueue<>();
-        addEventListeners(context, editorStateService, ideStateService, heartbeatQueue);
-
+        heartbeatQueue = new HeartbeatQueue();
         String pluginVersion = context.getDescriptor().getVersion();
 
+        Path coordinationLocation = wakatimeLocation.resolve("railroad-plugin");
+        activityAggregator = new ActivityAggregator(coordinationLocation.resolve("activity"), ActivityAggregator.DEFAULT_TIMEOUT_MILLIS,
+                command -> SCHEDULER.execute(command));
+        try {
+            heartbeatSpool = HeartbeatSpool.open(coordinationLocation);
+            instanceCoordinator = new InstanceCoordinator(coordinationLocation);
+        } catch (IOException exception) {
+            logger.warn("Unable to open the shared heartbeat spool, this instance will send its own heartbeats", exception);
+        }
+
+        catchUpEngine = new CatchUpEngine(logger,
+                heartbeats -> startCli(heartbeats, TOKEN_STORE.getToken("WakatimeApiKey"), applicationInfoService, pluginVersion).waitFor(),
+                WakatimePlugin::hasApiKey, getCatchUpWorkers());
+
         SCHEDULER = Executors.newScheduledThreadPool(1);
+        activityGate = new ActivityGate(SCHEDULER,
+                () -> dispatchHeartbeats(heartbeatQueue, applicationInfoService, pluginVersion),
+                HEARTBEAT_PERIOD_SECONDS, IDLE_TIMEOUT_MILLIS,
+                () -> !heartbeatQueue.isEmpty() || (heartbeatSpool != null && !heartbeatSpool.isEmpty())
+                        || (activityAggregator != null && activityAggregator.hasPendingHeartbeats()));
+
+        priorityDispatch = () -> dispatchPriorityHeartbeats(heartbeatQueue, applicationInfoService, pluginVersion);
+        addEventListeners(context, editorStateService, ideStateService, heartbeatQueue);
 
         try{
             if(TOKEN_STORE.getToken("WakatimeApiKey").isEmpty()){
@@ -198,7 +262,7 @@ public class WakatimePlugin implements Plugin {
             displayPopup(context);
         }
 
-        SCHEDULER.scheduleAtFixedRate(() -> runHeartbeatQueue(heartbeatQueue, applicationInfoService, pluginVersion, TOKEN_STORE.getToken("WakatimeApiKey")), 0, 30, TimeUnit.SECONDS);
+        activityGate.install();
     }
 
     private void displayPopup(PluginContext context){
@@ -257,6 +321,49 @@ public class WakatimePlugin implements Plugin {
 
     @Override
     public void onDisable(PluginContext context) {
+        priorityDispatch = null;
+        if (activityGate != null) {
+            activityGate.uninstall();
+            activityGate = null;
+        }
+
+        List<Heartbeat> unsent = List.of();
+        if (catchUpEngine != null) {
+            unsent = catchUpEngine.shutdown();
+            catchUpEngine = null;
+        }
+
+        if (activityAggregator != null) {
+            flushActivity();
+            activityAggregator = null;
+        }
+
+        if (heartbeatSpool != null) {
+            if (heartbeatQueue != null) {
+                spoolHeartbeats(heartbeatQueue);
+            }
+
+            try {
+                // Already aggregated when they were handed to the catch-up engine
+                List<Heartbeat> remaining = heartbeatSpool.appendAggregated(unsent);
+                if (!remaining.isEmpty()) {
+                    context.getLogger().warn("Heartbeat spool is full, dropped {} unsent catch-up heartbeats", remaining.size());
+                }
+            } catch (IOException exception) {
+                context.getLogger().warn("Failed to spool unsent catch-up heartbeats", exception);
+            }
+
+            try {
+                instanceCoordinator.close();
+                heartbeatSpool.close();
+            } catch (IOException exception) {
+                context.getLogger().warn("Failed to close the shared heartbeat spool", exception);
+            }
+
+            instanceCoordinator = null;
+            heartbeatSpool = null;
+        }
+
         Registry<Setting<?>> settingRegistry = Registries.getSettingsRegistry(context);
         try {
             if (apiKeySetting != null) {
@@ -278,78 +385,302 @@ public class WakatimePlugin implements Plugin {
                 settingRegistry.unregister(isDebugSetting.getId());
                 context.getLogger().info("Setting '" + isDebugSetting.getId() + "' unregistered.");
             }
+
+            if (catchUpWorkersSetting != null) {
+                settingRegistry.unregister(catchUpWorkersSetting.getId());
+                context.getLogger().info("Setting '" + catchUpWorkersSetting.getId() + "' unregistered.");
+            }
         } catch (Exception exception) {
             context.getLogger().warn("Failed to unregister setting", exception);
         }
     }
 
-    public void addEventListeners(PluginContext context, DocumentEditorStateService editorStateService, IDEStateService ideStateService, Queue<Heartbeat> heartbeatQueue) {
+    public void addEventListeners(PluginContext context, DocumentEditorStateService editorStateService, IDEStateService ideStateService, HeartbeatQueue heartbeatQueue) {
+        ActivityGate gate = activityGate;
         context.getEventBus().subscribe(FileEvent.class, event -> {
+            var receiptEvent = new HeartbeatReceiptEvent();
+            receiptEvent.begin();
+
             if (event.isActivatedEvent()) {
                 Document file = event.file();
                 logger.debug("File {} activated", file.getPath().toString());
+                receiptEvent.eventType = "activated";
+
+                // Checked before the activation counts as input, so that activations after an idle period are skipped
+                boolean active = gate.isActive();
+                gate.recordEditorActivity();
+                if (!active) {
+                    logger.debug("Skipping file activated heartbeat while idle");
+                    receiptEvent.commit();
+                    return;
+                }
 
-                heartbeatQueue.add(new Heartbeat.Builder()
-                        .setEntity(file.getPath().toString())
-                        .setLineCount((int) file.getContentAsString().lines().count())
-                        .setLineNumber(editorStateService.getCursors().getLast().line())
-                        .setCursorPosition(editorStateService.getCursors().getLast().column())
-                        .setTimestamp(getCurrentTimestamp())
-                        .setWrite(false)
-                        .setUnsavedFile(file.isDirty())
-                        .setProject(ideStateService.getCurrentProject().getAlias())
-                        .setLanguage(file.getLanguageId())
-                        .setBuilding(false)
-                        .build());
-
-                logger.debug("Added file is activated heartbeat to queue:" +
-                        "setUnsavedFile: " + file.isDirty());
-
+                registerCurrentProject(ideStateService);
+                queueHeartbeat(receiptEvent, file, HeartbeatQueue.Lane.PRIORITY, false, file.isDirty(), 0,
+                        editorStateService, ideStateService, heartbeatQueue);
             } else if (event.isSavedEvent()) {
-                Document file = event.file();
-                heartbeatQueue.add(new Heartbeat.Builder()
-                        .setEntity(file.getPath().toString())
-                        .setLineCount((int) file.getContentAsString().lines().count())
-                        .setLineNumber(editorStateService.getCursors().getLast().line())
-                        .setCursorPosition(editorStateService.getCursors().getLast().column())
-                        .setTimestamp(getCurrentTimestamp())
-                        .setWrite(true)
-                        .setUnsavedFile(false)
-                        .setProject(ideStateService.getCurrentProject().getAlias())
-                        .setLanguage(file.getLanguageId())
-                        .setBuilding(false)
-                        .build());
-
-                logger.debug("Added file saved heartbeat to queue:" +
-                        "setUnsavedFile: " + file.isDirty());
+                receiptEvent.eventType = "saved";
+                queueHeartbeat(receiptEvent, event.file(), HeartbeatQueue.Lane.PRIORITY, true, false, 0,
+                        editorStateService, ideStateService, heartbeatQueue);
             }
         });
 
         context.getEventBus().subscribe(FileModifiedEvent.class, event -> {
+            var receiptEvent = new HeartbeatReceiptEvent();
+            receiptEvent.begin();
+            receiptEvent.eventType = "modified";
+
+            gate.recordEditorActivity();
+
             Document file = event.file();
-            heartbeatQueue.add(new Heartbeat.Builder()
-                    .setEntity(file.getPath().toString())
-                    .setLineCount((int) file.getContentAsString().lines().count())
-                    .setLineNumber(editorStateService.getCursors().getLast().line() + 1)
-                    .setCursorPosition(editorStateService.getCursors().getLast().column())
-                    .setTimestamp(getCurrentTimestamp())
-                    .setWrite(true)
-                    .setUnsavedFile(file.isDirty())
-                    .setProject(ideStateService.getCurrentProject().getAlias())
-                    .setLanguage(file.getLanguageId())
-                    .setBuilding(false)
-                    .build());
-
-            logger.debug("Added file modified heartbeat to queue:" +
-                    "setUnsavedFile: " + file.isDirty());
+            queueHeartbeat(receiptEvent, file, HeartbeatQueue.Lane.MODIFICATION, true, file.isDirty(), 1,
+                    editorStateService, ideStateService, heartbeatQueue);
+        });
+    }
+
+    /**
+     * Builds a heartbeat for the file at the current cursor, queues it and commits the receipt event of the listener.
+     *
+     * @param receiptEvent the receipt event started by the listener
+     * @param file         the file the heartbeat is for
+     * @param lane         the lane to queue the heartbeat in
+     * @param write        whether the heartbeat counts as a write
+     * @param unsavedFile  whether the file has unsaved changes
+     * @param lineOffset   added to the line number of the cursor
+     */
+    private void queueHeartbeat(HeartbeatReceiptEvent receiptEvent, Document file, HeartbeatQueue.Lane lane, boolean write, boolean unsavedFile, int lineOffset,
+                                DocumentEditorStateService editorStateService, IDEStateService ideStateService, HeartbeatQueue heartbeatQueue) {
+        ProjectPathIndex.Attribution attribution = attribute(file, ideStateService);
+
+        var buildEvent = new HeartbeatBuildEvent();
+        buildEvent.begin();
+        String content = file.getContentAsString();
+        Heartbeat heartbeat = new Heartbeat.Builder()
+                .setEntity(file.getPath().toString())
+                .setLineCount(countLines(content, buildEvent))
+                .setLineNumber(editorStateService.getCursors().getLast().line() + lineOffset)
+                .setCursorPosition(editorStateService.getCursors().getLast().column())
+                .setTimestamp(getCurrentTimestamp())
+                .setWrite(write)
+                .setUnsavedFile(unsavedFile)
+                .setProject(attribution.project())
+                .setLanguage(attribution.language())
+                .setBuilding(false)
+                .build();
+        buildEvent.commit();
+
+        heartbeatQueue.add(lane, heartbeat);
+        ActivityGate gate = activityGate;
+        if (gate != null) {
+            gate.wake();
+        }
+
+        if (lane == HeartbeatQueue.Lane.PRIORITY) {
+            schedulePriorityDispatch();
+        }
+
+        logger.debug("Added file {} heartbeat to queue: setUnsavedFile: {}", receiptEvent.eventType, unsavedFile);
+
+        receiptEvent.entitySize = content.length();
+        receiptEvent.queued = true;
+        receiptEvent.commit();
+    }
+
+    private static int countLines(String content, HeartbeatBuildEvent buildEvent) {
+        if (!buildEvent.isEnabled())
+            return (int) content.lines().count();
+
+        long start = System.nanoTime();
+        int lineCount = (int) content.lines().count();
+        buildEvent.lineCountDuration = System.nanoTime() - start;
+        buildEvent.lineCount = lineCount;
+        buildEvent.entitySize = content.length();
+        return lineCount;
+    }
+
+    private ProjectPathIndex.Attribution attribute(Document file, IDEStateService ideStateService) {
+        return projectIndex.resolve(file.getPath(), file::getLanguageId, () -> registerCurrentProject(ideStateService));
+    }
+
+    private String registerCurrentProject(IDEStateService ideStateService) {
+        var project = ideStateService.getCurrentProject();
+        if (project == null)
+            return null;
+
+        if (project.getPath() != null && project.getAlias() != null) {
+            projectIndex.register(project.getPath(), project.getAlias());
+        }
+
+        return project.getAlias();
+    }
+
+    private void dispatchHeartbeats(HeartbeatQueue heartbeatQueue, ApplicationInfoService applicationInfoService, String pluginVersion) {
+        HeartbeatSpool spool = heartbeatSpool;
+        InstanceCoordinator coordinator = instanceCoordinator;
+        boolean leader = spool == null || coordinator == null || coordinator.tryAcquireLeadership();
+        // Pick up the state flushed by the previous leader before consuming anything
+        if (activityAggregator != null) {
+            activityAggregator.reloadIfChanged();
+        }
+
+        if (leader) {
+            if (spool != null) {
+                try {
+                    collectSpooledHeartbeats(spool.drain(), heartbeatQueue);
+                } catch (IOException exception) {
+                    logger.error("Error reading the shared heartbeat spool!", exception);
+                }
+            }
+
+            runHeartbeatQueue(heartbeatQueue, applicationInfoService, pluginVersion, TOKEN_STORE.getToken("WakatimeApiKey"));
+            if (catchUpEngine != null && hasApiKey()) {
+                catchUpEngine.resume();
+            }
+            if (activityAggregator != null) {
+                activityAggregator.advance(System.currentTimeMillis());
+            }
+
+            flushActivity();
+        } else {
+            spoolHeartbeats(heartbeatQueue);
+        }
+
+        if (activityAggregator != null) {
+            activityAggregator.refresh();
+        }
+
+        // Let an active instance take over instead of waking this one up
+        ActivityGate gate = activityGate;
+        if (coordinator != null && gate != null && !gate.isActive()) {
+            coordinator.releaseLeadership();
+        }
+    }
+
+    private void collectSpooledHeartbeats(HeartbeatSpool.Contents contents, HeartbeatQueue heartbeatQueue) {
+        Map<HeartbeatQueue.Lane, List<Heartbeat>> spooled = contents.heartbeats();
+        int count = spooled.values().stream().mapToInt(List::size).sum();
+        if (count + contents.aggregated().size() == 0)
+            return;
+
+        logger.debug("Collected {} heartbeats from other instances", count + contents.aggregated().size());
+        // Left over by a previous catch-up, so they go straight back to the catch-up engine without being aggregated again
+        if (!contents.aggregated().isEmpty() && catchUpEngine != null) {
+            catchUpEngine.submit(contents.aggregated());
+        }
+
+        if (count >= CATCH_UP_THRESHOLD && catchUpEngine != null) {
+            List<Heartbeat> backlog = new ArrayList<>(count);
+            spooled.values().forEach(backlog::addAll);
+            // Skips runHeartbeatQueue, so it has to be aggregated here
+            if (activityAggregator != null) {
+                activityAggregator.consume(backlog);
+            }
+
+            catchUpEngine.submit(backlog);
+            return;
+        }
+
+        spooled.forEach((lane, heartbeats) -> heartbeats.forEach(heartbeat -> heartbeatQueue.add(lane, heartbeat)));
+    }
+
+    private static boolean hasApiKey() {
+        try {
+            String apiKey = TOKEN_STORE.getToken("WakatimeApiKey");
+            return apiKey != null && !apiKey.isBlank();
+        } catch (RuntimeException exception) {
+            return false;
+        }
+    }
+
+    private int getCatchUpWorkers() {
+        try {
+            return Math.max(1, Integer.parseInt(catchUpWorkersSetting.getValue().trim()));
+        } catch (RuntimeException exception) {
+            logger.warn("Invalid catch-up worker count '{}', using {}", catchUpWorkersSetting.getValue(), DEFAULT_CATCH_UP_WORKERS);
+            return DEFAULT_CATCH_UP_WORKERS;
+        }
+    }
+
+    private static void flushActivity() {
+        ActivityAggregator aggregator = activityAggregator;
+        if (aggregator == null)
+            return;
+
+        try {
+            aggregator.flush();
+        } catch (IOException exception) {
+            logger.error("Error writing activity snapshots!", exception);
+        }
+    }
+
+    private void spoolHeartbeats(HeartbeatQueue heartbeatQueue) {
+        for (HeartbeatQueue.Lane lane : HeartbeatQueue.Lane.values()) {
+            spoolHeartbeats(heartbeatQueue, lane);
+        }
+    }
+
+    private void spoolHeartbeats(HeartbeatQueue heartbeatQueue, HeartbeatQueue.Lane lane) {
+        heartbeatQueue.transfer(lane, heartbeats -> {
+            try {
+                List<Heartbeat> remaining = heartbeatSpool.append(lane, heartbeats);
+                if (!remaining.isEmpty()) {
+                    logger.warn("Heartbeat spool is full, keeping {} heartbeats in this instance", remaining.size());
+                }
+
+                return remaining;
+            } catch (IOException exception) {
+                logger.error("Error writing to the shared heartbeat spool!", exception);
+                return heartbeats;
+            }
         });
     }
 
+    /**
+     * Dispatches writes and activations shortly after they are queued instead of waiting for the next tick,
+     * coalescing bursts into a single dispatch.
+     */
+    private void schedulePriorityDispatch() {
+        if (priorityDispatch == null || !priorityDispatchScheduled.compareAndSet(false, true))
+            return;
+
+        SCHEDULER.schedule(() -> {
+            priorityDispatchScheduled.set(false);
+            Runnable dispatch = priorityDispatch;
+            if (dispatch != null) {
+                dispatch.run();
+            }
+        }, PRIORITY_DISPATCH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void dispatchPriorityHeartbeats(HeartbeatQueue heartbeatQueue, ApplicationInfoService applicationInfoService, String pluginVersion) {
+        InstanceCoordinator coordinator = instanceCoordinator;
+        if (heartbeatSpool != null && coordinator != null && !coordinator.isLeader()) {
+            // Followers hand the lane to the leader, which sends it on its next tick
+            spoolHeartbeats(heartbeatQueue, HeartbeatQueue.Lane.PRIORITY);
+            return;
+        }
+
+        runHeartbeatQueue(heartbeatQueue, List.of(HeartbeatQueue.Lane.PRIORITY), applicationInfoService, pluginVersion);
+    }
+
+    /**
+     * Returns the local activity aggregates, which can be queried without going through the Wakatime CLI.
+     *
+     * @return the activity aggregator, or null if the plugin is not enabled
+     */
+    public static ActivityAggregator getActivityAggregator() {
+        return activityAggregator;
+    }
+
     private static BigDecimal getCurrentTimestamp() {
         return new BigDecimal((System.currentTimeMillis() / 1000.0)).setScale(4, RoundingMode.HALF_UP);
     }
 
-    public void runHeartbeatQueue(Queue<Heartbeat> heartbeatQueue, ApplicationInfoService applicationInfoService, String currentVersion, String apiKey) {
+    public void runHeartbeatQueue(HeartbeatQueue heartbeatQueue, ApplicationInfoService applicationInfoService, String currentVersion, String apiKey) {
+        runHeartbeatQueue(heartbeatQueue, List.of(HeartbeatQueue.Lane.values()), applicationInfoService, currentVersion);
+    }
+
+    private void runHeartbeatQueue(HeartbeatQueue heartbeatQueue, List<HeartbeatQueue.Lane> lanes, ApplicationInfoService applicationInfoService, String currentVersion) {
         String retrievedApiKey;
         try {
             retrievedApiKey = TOKEN_STORE.getToken("WakatimeApiKey");
@@ -360,39 +691,73 @@ public class WakatimePlugin implements Plugin {
             throw new RuntimeException(e);
         }
 
-        Heartbeat initialHeartbeat = heartbeatQueue.poll();
-        if (initialHeartbeat == null)
-            return;
+        List<Heartbeat> heartbeats = new ArrayList<>();
+        for (HeartbeatQueue.Lane lane : lanes) {
+            heartbeats.addAll(heartbeatQueue.drain(lane));
+        }
 
-        List<Heartbeat> additionalHeartbeats = new ArrayList<>();
-        for (int i = 0; i < heartbeatQueue.size(); i++) {
-            Heartbeat heartbeat = heartbeatQueue.poll();
-            if (heartbeat == null)
-                break;
+        if (heartbeats.isEmpty())
+            return;
 
-            additionalHeartbeats.add(heartbeat);
+        logLaneMetrics(heartbeatQueue);
+        if (activityAggregator != null) {
+            activityAggregator.consume(heartbeats);
         }
 
-        logger.debug("Found {} additional heartbeats!", additionalHeartbeats.size());
-
-        String[] command = buildCliCommand(initialHeartbeat, retrievedApiKey, additionalHeartbeats, applicationInfoService, currentVersion);
+        if (heartbeats.size() >= CATCH_UP_THRESHOLD && catchUpEngine != null) {
+            logger.debug("Handing a backlog of {} heartbeats to the catch-up engine", heartbeats.size());
+            catchUpEngine.submit(heartbeats);
+            return;
+        }
 
-        Process process;
         try {
-            process = new ProcessBuilder(command).start();
+            startCli(heartbeats, retrievedApiKey, applicationInfoService, currentVersion);
         } catch (IOException exception) {
             logger.error("Error starting Wakatime CLI process!", exception);
-            return;
+            if (catchUpEngine != null) {
+                catchUpEngine.submit(heartbeats);
+            }
+        }
+    }
+
+    private Process startCli(List<Heartbeat> heartbeats, String apiKey, ApplicationInfoService applicationInfoService, String currentVersion) throws IOException {
+        Heartbeat initialHeartbeat = heartbeats.getFirst();
+        List<Heartbeat> additionalHeartbeats = heartbeats.subList(1, heartbeats.size());
+
+        logger.debug("Found {} additional heartbeats!", additionalHeartbeats.size());
+
+        String[] command = buildCliCommand(initialHeartbeat, apiKey, additionalHeartbeats, applicationInfoService, currentVersion);
+
+        var processEvent = new CliProcessEvent();
+        processEvent.begin();
+        Process process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+
+        if (processEvent.isEnabled()) {
+            processEvent.batchSize = heartbeats.size();
+            process.onExit().thenAccept(exited -> {
+                processEvent.exitCode = exited.exitValue();
+                processEvent.commit();
+            });
         }
 
+        var serializationEvent = new HeartbeatSerializationEvent();
+        serializationEvent.begin();
         var jsonArray = new JsonArray();
         for (Heartbeat heartbeat : additionalHeartbeats) {
             jsonArray.add(GSON.toJsonTree(heartbeat));
         }
 
+        byte[] payload = GSON.toJson(jsonArray).getBytes(StandardCharsets.UTF_8);
+        serializationEvent.batchSize = heartbeats.size();
+        serializationEvent.serializedSize = payload.length;
+        serializationEvent.commit();
+
         try {
             OutputStream outputStream = process.getOutputStream();
-            outputStream.write(GSON.toJson(jsonArray).getBytes(StandardCharsets.UTF_8));
+            outputStream.write(payload);
 
             outputStream.write("\n".getBytes());
 
@@ -401,6 +766,17 @@ public class WakatimePlugin implements Plugin {
         } catch (IOException exception) {
             logger.error("Error writing to Wakatime CLI process!", exception);
         }
+
+        return process;
+    }
+
+    private static void logLaneMetrics(HeartbeatQueue heartbeatQueue) {
+        for (HeartbeatQueue.Lane lane : HeartbeatQueue.Lane.values()) {
+            HeartbeatQueue.LaneMetrics metrics = heartbeatQueue.getMetrics(lane);
+            logger.debug("Lane {}: dispatched={}, dropped={}, avgLatency={}ms, maxLatency={}ms",
+                    lane, metrics.dispatched(), metrics.dropped(),
+                    "%.1f".formatted(metrics.averageLatencyMs()), "%.1f".formatted(metrics.maxLatencyMs()));
+        }
     }
 
     private String[] buildCliCommand(Heartbeat heartbeat, String apiKey, List<Heartbeat> extraHeartbeats, ApplicationInfoService applicationInfoService, String currentVersion) {